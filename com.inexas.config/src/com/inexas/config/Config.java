@@ -2,8 +2,12 @@ package com.inexas.config;
 
 import java.io.File;
 import java.math.*;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.*;
 import com.inexas.exception.UnexpectedException;
 import com.inexas.oak.Oak;
 import com.inexas.oak.advisory.OakException;
@@ -14,6 +18,20 @@ import com.inexas.util.FileU;
 /**
  * Config reads in a number of configuration files written in Oak and can be
  * queried to get values from them.
+ * <p>
+ * The values are held in immutable versions. Each reload() publishes a new
+ * version and the last few are kept so that you can switch back to one with
+ * activate() or rollback() without re-parsing. Getters always read from the
+ * active version so two calls may see different versions if the active one is
+ * changed in between. If a unit of work needs to read several related values,
+ * e.g. a user ID and a password, use pin() to get a Config that stays on one
+ * version:
+ *
+ * <pre>
+ * final Config pinned = config.pin();
+ * final String userid = pinned.getString("/MyComponent/Database/userid");
+ * final String password = pinned.getString("/MyComponent/Database/password");
+ * </pre>
  */
 public class Config implements Tad {
 	/**
@@ -52,6 +70,14 @@ public class Config implements Tad {
 		}
 	}
 
+	public static class NoSuchVersionException extends RuntimeException {
+		private static final long serialVersionUID = -2291934036513553016L;
+
+		public NoSuchVersionException(long version) {
+			super("No such version: " + version);
+		}
+	}
+
 	public static class TypeMismatchException extends RuntimeException {
 		private static final long serialVersionUID = 5182463621882188013L;
 
@@ -60,6 +86,12 @@ public class Config implements Tad {
 					"' got " + got.getCanonicalName() +
 					" expected " + expected.getCanonicalName());
 		}
+
+		public TypeMismatchException(String path, String text, Class<?> expected) {
+			super("Cannot convert value for Config path: '" + path +
+					"' to " + expected.getCanonicalName() +
+					": \"" + text + '"');
+		}
 	}
 
 	private final static BigInteger BigInteger_MIN_INT = BigInteger.valueOf(Integer.MIN_VALUE);
@@ -72,11 +104,35 @@ public class Config implements Tad {
 	private final static BigDecimal BigDecimal_MIN_LONG = new BigDecimal(String.valueOf(Long.MIN_VALUE));
 	private final static BigDecimal BigDecimal_MAX_LONG = new BigDecimal(String.valueOf(Long.MAX_VALUE));
 
+	private final static Pattern DURATION = Pattern.compile(
+			"([+-]?[0-9]+)\\s*(ns|us|ms|s|m|h|d)?",
+			Pattern.CASE_INSENSITIVE);
+	private final static Pattern BYTES = Pattern.compile(
+			"([0-9]+)\\s*(?:([kmgtpe])i?)?b?",
+			Pattern.CASE_INSENSITIVE);
+	private final static String BYTE_UNITS = "kmgtpe";
+
+	/** Cache key for getBytes(), the other getters use the result class */
+	private final static Object KEY_bytes = new Object();
+	/** Cached in place of null as ConcurrentHashMap doesn't allow nulls */
+	private final static Object NULL = new Object();
+
 	private final static int TYPE_integer = 0;
 	private final static int TYPE_INTEGER = 1;
 	private final static int TYPE_decimal = 2;
 	private final static int TYPE_DECIMAL = 3;
-	private final Map<String, Object> map = new HashMap<>();
+	/** The number of versions kept for activate() and rollback() */
+	private final static int HISTORY_SIZE = 8;
+
+	private final String configPath;
+	private final ConfigOverrides overrides;
+	/** The versions that can be activated, null for pinned Configs */
+	private final ConfigVersion[] history;
+	private final List<Listener> listeners;
+	private long nextVersion = 1;
+	/** The version that was active before the last switch, 0 for none */
+	private long previousVersion;
+	private volatile ConfigVersion active;
 
 	/**
 	 * Load the config given a path. The path may be either absolute (starts
@@ -86,7 +142,27 @@ public class Config implements Tad {
 	 *            the path to load from.
 	 */
 	public static Config newInstance(String configPath) {
-		return load(configPath);
+		return load(configPath, null);
+	}
+
+	/**
+	 * Load the config given a path and then apply environment variable and
+	 * system property overrides. The path may be either absolute (starts with
+	 * a '/' or a contains a ':' or relative.
+	 *
+	 * @param configPath
+	 *            the path to load from.
+	 * @param overrides
+	 *            the environment variable and system property to path mapping
+	 *            to apply once the files have been read.
+	 * @throws TypeMismatchException
+	 *             Thrown if an override cannot be converted to the type of the
+	 *             value it replaces.
+	 * @see ConfigOverrides
+	 */
+	public static Config newInstance(String configPath, ConfigOverrides overrides)
+			throws TypeMismatchException {
+		return load(configPath, overrides);
 	}
 
 	/**
@@ -95,13 +171,114 @@ public class Config implements Tad {
 	 * @return
 	 */
 	public static Config newInstance() {
-		return load("config/");
+		return load("config/", null);
 	}
 
 	// Constructor...
 
-	private Config() {
-		// Quick! Hide!!
+	private Config(String configPath, ConfigOverrides overrides) {
+		this.configPath = configPath;
+		this.overrides = overrides;
+		history = new ConfigVersion[HISTORY_SIZE];
+		listeners = new CopyOnWriteArrayList<>();
+	}
+
+	private Config(ConfigVersion version) {
+		configPath = null;
+		overrides = null;
+		history = null;
+		listeners = null;
+		active = version;
+	}
+
+	/**
+	 * Create a Config that is not backed by files, its versions are published
+	 * by the caller, e.g. a ConfigClient. Nothing is active until the first
+	 * version is published.
+	 */
+	Config() {
+		this(null, null);
+	}
+
+	/**
+	 * Return a Config that reads from the currently active version and will
+	 * continue to do so even if this Config is reloaded or another version is
+	 * activated. No locks are taken by either the pin or the reads. Drop the
+	 * pinned Config at the end of the unit of work so that old versions can be
+	 * reclaimed.
+	 *
+	 * @return A read-only Config fixed to the active version.
+	 */
+	public Config pin() {
+		return new Config(active);
+	}
+
+	/**
+	 * @return The number of the active version. Version numbers start at 1 and
+	 *         increase with each new version.
+	 */
+	public long getVersion() {
+		return active.number;
+	}
+
+	/**
+	 * Re-read the config files, and apply the overrides if any, then publish
+	 * the result as a new version and make it active.
+	 *
+	 * @return The number of the new version.
+	 * @throws IllegalStateException
+	 *             Thrown if this is a pinned Config or one that was not loaded
+	 *             from files.
+	 */
+	public long reload() throws IllegalStateException {
+		checkNotPinned();
+		if(configPath == null) {
+			throw new IllegalStateException("Config was not loaded from files");
+		}
+		final Map<String, Object> map = new HashMap<>();
+		final Map<String, String> sources = new HashMap<>();
+		read(configPath, overrides, map, sources);
+		return publish(map, sources);
+	}
+
+	/**
+	 * Make a previous version active again. This does not re-read anything so
+	 * it is quick, O(1), and can be used to back out a bad config.
+	 *
+	 * @param version
+	 *            The version number to activate.
+	 * @throws NoSuchVersionException
+	 *             Thrown if the version has never existed or is no longer
+	 *             kept. Only the last few versions are kept.
+	 * @throws IllegalStateException
+	 *             Thrown if this is a pinned Config.
+	 */
+	public synchronized void activate(long version) throws NoSuchVersionException, IllegalStateException {
+		final ConfigVersion toActivate = getKeptVersion(version);
+		if(toActivate == null) {
+			throw new NoSuchVersionException(version);
+		}
+		makeActive(toActivate);
+	}
+
+	/**
+	 * Activate the version that was active before the last switch, whether
+	 * that was made by reload(), activate() or rollback(). For example, if
+	 * version 2 is bad then rollback() activates version 1; if version 3 is
+	 * then loaded a second rollback() goes back to version 1, not to the bad
+	 * version 2.
+	 *
+	 * @return The number of the version that is now active.
+	 * @throws NoSuchVersionException
+	 *             Thrown if there is no previous version or it is no longer
+	 *             kept.
+	 * @throws IllegalStateException
+	 *             Thrown if this is a pinned Config.
+	 */
+	public synchronized long rollback() throws NoSuchVersionException, IllegalStateException {
+		final long result = previousVersion;
+		activate(result);
+		return result;
 	}
 
 	/**
@@ -113,13 +290,77 @@ public class Config implements Tad {
 	 *            The value to associate with the path. Use the correct Object
 	 *            type that will be compatible with the getXxxx() methods you
 	 *            intend to use.
+	 * @throws IllegalArgumentException
+	 *             Thrown if the value is not one of the Oak types, see
+	 *             update().
 	 * @deprecated This method is deprecated because in most situations config
 	 *             should be immutable. However, for changing or setting values
-	 *             might be useful.
+	 *             might be useful. Each call copies the config and publishes
+	 *             it as a new version, using up one of the few versions kept
+	 *             for activate() and rollback(). Use update() to change
+	 *             several values at once.
 	 */
 	@Deprecated
 	public void set(String path, Object value) {
-		map.put(path, value);
+		update(Collections.singletonMap(path, value));
+	}
+
+	/**
+	 * Set the values associated with a number of paths and publish the result
+	 * as a single new version. Readers see either all of the changes or none
+	 * of them.
+	 *
+	 * @param values
+	 *            The path to value map of changes, e.g.
+	 *            "/MyConfig/Database/password" to "secret". Use the correct
+	 *            Object types that will be compatible with the getXxxx()
+	 *            methods you intend to use.
+	 * @return The number of the new version.
+	 * @throws IllegalArgumentException
+	 *             Thrown if a value is not one of the Oak types: null,
+	 *             Boolean, Long, Double, BigInteger, BigDecimal or String.
+	 *             Nothing is changed.
+	 * @throws IllegalStateException
+	 *             Thrown if this is a pinned Config.
+	 */
+	public synchronized long update(Map<String, ?> values)
+			throws IllegalArgumentException, IllegalStateException {
+		checkNotPinned();
+		for(final Entry<String, ?> entry : values.entrySet()) {
+			final Object value = entry.getValue();
+			if(value != null && !isOakType(value.getClass())) {
+				throw new IllegalArgumentException("Not an Oak type: "
+						+ value.getClass().getName() + ", path: " + entry.getKey());
+			}
+		}
+
+		final Map<String, Object> map = new HashMap<>(active.map);
+		final Map<String, String> sources = new HashMap<>(active.sources);
+		for(final Entry<String, ?> entry : values.entrySet()) {
+			map.put(entry.getKey(), entry.getValue());
+			sources.put(entry.getKey(), "set");
+		}
+		return publish(map, sources);
+	}
+
+	/**
+	 * Return where the value associated with the given path came from. This is
+	 * the name of the file that last set it, e.g. "MyComponent.config", or for
+	 * overrides "env:" or "property:" followed by the name of the environment
+	 * variable or system property.
+	 *
+	 * @param path
+	 *            The path, e.g. "/MyConfig/Database/password".
+	 * @return The source of the value associated with the path.
+	 * @throws NoSuchPathException
+	 *             The config files do not contain a mapping for the give path.
+	 */
+	public String getSource(String path) throws NoSuchPathException {
+		final ConfigVersion version = active;
+		if(!version.map.containsKey(path)) {
+			throw new NoSuchPathException(path);
+		}
+		return version.sources.get(path);
 	}
 
 	/**
@@ -263,52 +504,11 @@ public class Config implements Tad {
 	 */
 	public long getLong(String path)
 			throws NoSuchPathException, TypeMismatchException, NullValueException, OverflowException {
-		final long result;
-
 		final Number number = (Number)get(path, Number.class);
 		if(number == null) {
 			throw new NullValueException(path);
 		}
-
-		final int type = getOakTypeAsInt(number.getClass());
-		switch(type) {
-		case TYPE_integer: {
-			result = ((Long)number).longValue();
-			break;
-		}
-
-		case TYPE_INTEGER: {
-			final BigInteger bi = (BigInteger)number;
-			if(bi.compareTo(BigInteger_MIN_LONG) < 0 || bi.compareTo(BigInteger_MAX_LONG) > 0) {
-				throw new OverflowException(path, number, "long");
-			}
-			result = bi.longValue();
-			break;
-		}
-
-		case TYPE_decimal: {
-			final double d = number.doubleValue();
-			if(d % 1 != 0 || d < Long.MIN_VALUE || d > Long.MAX_VALUE) {
-				throw new OverflowException(path, number, "long");
-			}
-			result = number.longValue();
-			break;
-		}
-
-		case TYPE_DECIMAL: {
-			final BigDecimal bd = (BigDecimal)number;
-			if(bd.compareTo(BigDecimal_MIN_LONG) < 0 || bd.compareTo(BigDecimal_MAX_LONG) > 0) {
-				throw new OverflowException(path, number, "long");
-			}
-			result = number.longValue();
-			break;
-		}
-
-		default:
-			throw new UnexpectedException("Value: " + type);
-		}
-
-		return result;
+		return toLong(path, number);
 	}
 
 	/**
@@ -378,10 +578,172 @@ public class Config implements Tad {
 		return (Boolean)get(path, Boolean.class);
 	}
 
+	/**
+	 * Return the double value associated with the given path. Numbers of any
+	 * Oak type are converted, integer and INTEGER values may lose precision.
+	 * The converted value is cached so repeated calls do not allocate.
+	 *
+	 * @param path
+	 *            The path, e.g. "/MyConfig/Database/timeout".
+	 * @return The value associated with the path.
+	 * @throws NoSuchPathException
+	 *             The config files do not contain a mapping for the give path.
+	 * @throws TypeMismatchException
+	 *             Thrown if the value is not a number.
+	 * @throws NullValueException
+	 *             Thrown if the config files contain a null value for the given
+	 *             path.
+	 * @throws OverflowException
+	 *             Thrown if the value is too large to be represented as a
+	 *             double.
+	 */
+	public double getDouble(String path)
+			throws NoSuchPathException, TypeMismatchException, NullValueException, OverflowException {
+		final Double result = getDoubleObject(path);
+		if(result == null) {
+			throw new NullValueException(path);
+		}
+		return result.doubleValue();
+	}
+
+	/**
+	 * Return the Double value associated with the given path. See getDouble().
+	 *
+	 * @param path
+	 *            The path, e.g. "/MyConfig/Database/timeout".
+	 * @return The value associated with the path, may be null.
+	 * @throws NoSuchPathException
+	 *             The config files do not contain a mapping for the give path.
+	 * @throws TypeMismatchException
+	 *             Thrown if the value is not a number.
+	 * @throws OverflowException
+	 *             Thrown if the value is too large to be represented as a
+	 *             double.
+	 */
+	public Double getDoubleObject(String path)
+			throws NoSuchPathException, TypeMismatchException, OverflowException {
+		return (Double)getParsed(path, Double.class);
+	}
+
+	/**
+	 * Return the BigInteger value associated with the given path. Numbers of
+	 * any Oak type are converted as long as they have no fractional part. The
+	 * converted value is cached.
+	 *
+	 * @param path
+	 *            The path, e.g. "/MyConfig/Database/timeout".
+	 * @return The value associated with the path, may be null.
+	 * @throws NoSuchPathException
+	 *             The config files do not contain a mapping for the give path.
+	 * @throws TypeMismatchException
+	 *             Thrown if the value is not a number.
+	 * @throws OverflowException
+	 *             Thrown if the value has a fractional part.
+	 */
+	public BigInteger getBigInteger(String path)
+			throws NoSuchPathException, TypeMismatchException, OverflowException {
+		return (BigInteger)getParsed(path, BigInteger.class);
+	}
+
+	/**
+	 * Return the BigDecimal value associated with the given path. Numbers of
+	 * any Oak type are converted, a decimal is converted using its canonical
+	 * string representation so 1.1 becomes 1.1 and not
+	 * 1.100000000000000088817841970012523. The converted value is cached.
+	 *
+	 * @param path
+	 *            The path, e.g. "/MyConfig/Database/timeout".
+	 * @return The value associated with the path, may be null.
+	 * @throws NoSuchPathException
+	 *             The config files do not contain a mapping for the give path.
+	 * @throws TypeMismatchException
+	 *             Thrown if the value is not a number.
+	 * @throws OverflowException
+	 *             Thrown if the value is infinite or not a number.
+	 */
+	public BigDecimal getBigDecimal(String path)
+			throws NoSuchPathException, TypeMismatchException, OverflowException {
+		return (BigDecimal)getParsed(path, BigDecimal.class);
+	}
+
+	/**
+	 * Return the Duration value associated with the given path. The value may
+	 * be a whole number of milliseconds, text with a unit, e.g. "30s", or
+	 * ISO-8601 text, e.g. "PT1M30S". The units are ns, us, ms, s, m (minutes),
+	 * h and d (days), in any case. Text without a unit, e.g. "100" from an
+	 * environment variable override, is taken to be milliseconds like a
+	 * number. The parsed value is cached.
+	 *
+	 * @param path
+	 *            The path, e.g. "/MyConfig/Database/timeout".
+	 * @return The value associated with the path, may be null.
+	 * @throws NoSuchPathException
+	 *             The config files do not contain a mapping for the give path.
+	 * @throws TypeMismatchException
+	 *             Thrown if the value cannot be parsed as a Duration or is a
+	 *             number with a fractional part, e.g. 1.5.
+	 * @throws OverflowException
+	 *             Thrown if the value is too large for a Duration.
+	 */
+	public Duration getDuration(String path)
+			throws NoSuchPathException, TypeMismatchException, OverflowException {
+		return (Duration)getParsed(path, Duration.class);
+	}
+
+	/**
+	 * Return a size in bytes associated with the given path. The value may be
+	 * an integer number of bytes or text with a unit, e.g. "512MB". Units are
+	 * multiples of 1024, as for the JVM's -Xmx, and may be written K, KB or
+	 * KiB, in any case, and similarly for M, G, T, P and E. The parsed value is
+	 * cached.
+	 *
+	 * @param path
+	 *            The path, e.g. "/MyConfig/Cache/size".
+	 * @return The number of bytes.
+	 * @throws NoSuchPathException
+	 *             The config files do not contain a mapping for the give path.
+	 * @throws TypeMismatchException
+	 *             Thrown if the value cannot be parsed as a size.
+	 * @throws NullValueException
+	 *             Thrown if the config files contain a null value for the given
+	 *             path.
+	 * @throws OverflowException
+	 *             Thrown if the size cannot be represented as a long.
+	 */
+	public long getBytes(String path)
+			throws NoSuchPathException, TypeMismatchException, NullValueException, OverflowException {
+		final Long result = (Long)getParsed(path, KEY_bytes);
+		if(result == null) {
+			throw new NullValueException(path);
+		}
+		return result.longValue();
+	}
+
+	/**
+	 * Return the enum constant named by the text associated with the given
+	 * path. An exact match is tried first and then one ignoring case. The
+	 * constant found is cached.
+	 *
+	 * @param path
+	 *            The path, e.g. "/MyConfig/Log/level".
+	 * @param enumClass
+	 *            The class of enum to return.
+	 * @return The value associated with the path, may be null.
+	 * @throws NoSuchPathException
+	 *             The config files do not contain a mapping for the give path.
+	 * @throws TypeMismatchException
+	 *             Thrown if the value does not name one of the enum's
+	 *             constants.
+	 */
+	public <E extends Enum<E>> E getEnum(String path, Class<E> enumClass)
+			throws NoSuchPathException, TypeMismatchException {
+		return enumClass.cast(getParsed(path, enumClass));
+	}
+
 	@Override
 	public String toString() {
 		final StringBuilder sb = new StringBuilder();
-		for(final Entry<String, Object> entry : map.entrySet()) {
+		for(final Entry<String, Object> entry : active.map.entrySet()) {
 			sb.append(entry.getKey());
 			sb.append(": ");
 			final Object value = entry.getValue();
@@ -391,23 +753,38 @@ public class Config implements Tad {
 		return sb.toString();
 	}
 
-	private static Config load(String path) {
+	private static Config load(String path, ConfigOverrides overrides) {
 		assert path != null;
 
-		final Config result = new Config();
+		final Config result = new Config(path, overrides);
+		result.reload();
 
+		return result;
+	}
+
+	private static void read(
+			String path,
+			ConfigOverrides overrides,
+			Map<String, Object> map,
+			Map<String, String> sources) {
 		// !todo This doesn't work on Windows...
 		final boolean absolute = path.startsWith("/");
 		final File directory = absolute ? new File(path) : FileU.getHome(path);
 		assert directory.isDirectory();
 
-		load(directory, "[^\\.]*\\.base", result);
-		load(directory, "[^\\.]*\\.config", result);
+		read(directory, "[^\\.]*\\.base", map, sources);
+		read(directory, "[^\\.]*\\.config", map, sources);
 
-		return result;
+		if(overrides != null) {
+			overrides.apply(map, sources);
+		}
 	}
 
-	private static void load(File directory, String pattern, Config result) {
+	private static void read(
+			File directory,
+			String pattern,
+			Map<String, Object> map,
+			Map<String, String> sources) {
 		final File[] files = FileU.getChildren(directory, FileU.Type.FILE, pattern);
 		for(int i = 0; i < files.length; i++) {
 			// Read in each file...
@@ -418,15 +795,274 @@ public class Config implements Tad {
 				final Node root = oak.toAst();
 				final ConfigVisitor visitor = new ConfigVisitor();
 				root.accept(visitor);
-				result.map.putAll(visitor.getMap());
+				final Map<String, Object> values = visitor.getMap();
+				map.putAll(values);
+				final String source = file.getName();
+				for(final String key : values.keySet()) {
+					sources.put(key, source);
+				}
 			} catch(final OakException e) {
 				throw new RuntimeException("Error loading: " + file.getName(), e);
 			}
 		}
 	}
 
+	/**
+	 * Get a value converted to the type identified by the key. The result is
+	 * cached in the active version so the conversion is only done once per
+	 * path and version.
+	 */
+	private Object getParsed(String path, Object key)
+			throws NoSuchPathException, TypeMismatchException, OverflowException {
+		final ConfigVersion version = active;
+
+		Object result = version.getParsed(key, path);
+		if(result == null) {
+			final Object value = get(version, path, null);
+			result = value == null ? NULL : parse(path, value, key);
+			version.putParsed(key, path, result);
+		}
+
+		return result == NULL ? null : result;
+	}
+
+	private Object parse(String path, Object value, Object key)
+			throws TypeMismatchException, OverflowException {
+		final Object result;
+
+		if(key == Double.class) {
+			final double d = toNumber(path, value, Double.class).doubleValue();
+			if(Double.isInfinite(d) && !(value instanceof Double)) {
+				throw new OverflowException(path, (Number)value, "double");
+			}
+			result = new Double(d);
+		} else if(key == BigInteger.class) {
+			final BigDecimal bd = toBigDecimal(path, toNumber(path, value, BigInteger.class));
+			try {
+				result = bd.toBigIntegerExact();
+			} catch(final ArithmeticException e) {
+				throw new OverflowException(path, (Number)value, "BigInteger");
+			}
+		} else if(key == BigDecimal.class) {
+			result = toBigDecimal(path, toNumber(path, value, BigDecimal.class));
+		} else if(key == Duration.class) {
+			result = toDuration(path, value);
+		} else if(key == KEY_bytes) {
+			result = new Long(toBytes(path, value));
+		} else {
+			result = toEnum(path, value, (Class<?>)key);
+		}
+
+		return result;
+	}
+
+	private static Number toNumber(String path, Object value, Class<?> expectedClass)
+			throws TypeMismatchException {
+		if(!(value instanceof Number)) {
+			throw new TypeMismatchException(path, value.getClass(), expectedClass);
+		}
+		return (Number)value;
+	}
+
+	private BigDecimal toBigDecimal(String path, Number number) throws OverflowException {
+		final BigDecimal result;
+
+		final int type = getOakTypeAsInt(number.getClass());
+		switch(type) {
+		case TYPE_integer:
+			result = BigDecimal.valueOf(number.longValue());
+			break;
+
+		case TYPE_INTEGER:
+			result = new BigDecimal((BigInteger)number);
+			break;
+
+		case TYPE_decimal: {
+			final double d = number.doubleValue();
+			if(Double.isInfinite(d) || Double.isNaN(d)) {
+				throw new OverflowException(path, number, "BigDecimal");
+			}
+			result = BigDecimal.valueOf(d);
+			break;
+		}
+
+		case TYPE_DECIMAL:
+			result = (BigDecimal)number;
+			break;
+
+		default:
+			throw new UnexpectedException("Value: " + type);
+		}
+
+		return result;
+	}
+
+	private Duration toDuration(String path, Object value) throws TypeMismatchException, OverflowException {
+		final Duration result;
+
+		if(value instanceof Number) {
+			final Number number = (Number)value;
+			if(toBigDecimal(path, number).stripTrailingZeros().scale() > 0) {
+				// Not an overflow, 1.5 is a fine number but not a whole millisecond
+				throw new TypeMismatchException(path, number.toString(), Duration.class);
+			}
+			result = Duration.ofMillis(toLong(path, number));
+		} else if(value instanceof String) {
+			final String text = ((String)value).trim();
+			final Matcher matcher = DURATION.matcher(text);
+			if(matcher.matches()) {
+				final BigInteger amount = new BigInteger(matcher.group(1));
+				final String unitName = matcher.group(2);
+				final ChronoUnit unit;
+				switch(unitName == null ? "ms" : unitName.toLowerCase()) {
+				case "ns":
+					unit = ChronoUnit.NANOS;
+					break;
+				case "us":
+					unit = ChronoUnit.MICROS;
+					break;
+				case "ms":
+					unit = ChronoUnit.MILLIS;
+					break;
+				case "s":
+					unit = ChronoUnit.SECONDS;
+					break;
+				case "m":
+					unit = ChronoUnit.MINUTES;
+					break;
+				case "h":
+					unit = ChronoUnit.HOURS;
+					break;
+				case "d":
+					unit = ChronoUnit.DAYS;
+					break;
+				default:
+					throw new UnexpectedException("Unit: " + unitName);
+				}
+				try {
+					if(amount.bitLength() >= 64) {
+						throw new ArithmeticException();
+					}
+					result = Duration.of(amount.longValue(), unit);
+				} catch(final ArithmeticException e) {
+					throw new OverflowException(path, amount, "Duration");
+				}
+			} else {
+				try {
+					result = Duration.parse(text);
+				} catch(final RuntimeException e) {
+					throw new TypeMismatchException(path, (String)value, Duration.class);
+				}
+			}
+		} else {
+			throw new TypeMismatchException(path, value.getClass(), Duration.class);
+		}
+
+		return result;
+	}
+
+	private long toBytes(String path, Object value) throws TypeMismatchException, OverflowException {
+		final long result;
+
+		if(value instanceof Number) {
+			result = toLong(path, (Number)value);
+		} else if(value instanceof String) {
+			final Matcher matcher = BYTES.matcher(((String)value).trim());
+			if(!matcher.matches()) {
+				throw new TypeMismatchException(path, (String)value, Long.class);
+			}
+			final BigInteger amount = new BigInteger(matcher.group(1));
+			final String unit = matcher.group(2);
+			final int shift = unit == null ? 0 : 10 * (BYTE_UNITS.indexOf(unit.toLowerCase()) + 1);
+			final BigInteger bytes = amount.shiftLeft(shift);
+			if(bytes.bitLength() >= 64) {
+				throw new OverflowException(path, amount, "long");
+			}
+			result = bytes.longValue();
+		} else {
+			throw new TypeMismatchException(path, value.getClass(), Long.class);
+		}
+
+		return result;
+	}
+
+	private static Object toEnum(String path, Object value, Class<?> enumClass) throws TypeMismatchException {
+		if(!(value instanceof String)) {
+			throw new TypeMismatchException(path, value.getClass(), enumClass);
+		}
+
+		final String name = ((String)value).trim();
+		Object result = null;
+		for(final Object constant : enumClass.getEnumConstants()) {
+			final String constantName = ((Enum<?>)constant).name();
+			if(constantName.equals(name)) {
+				result = constant;
+				break;
+			}
+			if(result == null && constantName.equalsIgnoreCase(name)) {
+				result = constant;
+			}
+		}
+
+		if(result == null) {
+			throw new TypeMismatchException(path, (String)value, enumClass);
+		}
+
+		return result;
+	}
+
+	private long toLong(String path, Number number) throws OverflowException {
+		final long result;
+
+		final int type = getOakTypeAsInt(number.getClass());
+		switch(type) {
+		case TYPE_integer: {
+			result = ((Long)number).longValue();
+			break;
+		}
+
+		case TYPE_INTEGER: {
+			final BigInteger bi = (BigInteger)number;
+			if(bi.compareTo(BigInteger_MIN_LONG) < 0 || bi.compareTo(BigInteger_MAX_LONG) > 0) {
+				throw new OverflowException(path, number, "long");
+			}
+			result = bi.longValue();
+			break;
+		}
+
+		case TYPE_decimal: {
+			final double d = number.doubleValue();
+			if(d % 1 != 0 || d < Long.MIN_VALUE || d > Long.MAX_VALUE) {
+				throw new OverflowException(path, number, "long");
+			}
+			result = number.longValue();
+			break;
+		}
+
+		case TYPE_DECIMAL: {
+			final BigDecimal bd = (BigDecimal)number;
+			if(bd.compareTo(BigDecimal_MIN_LONG) < 0 || bd.compareTo(BigDecimal_MAX_LONG) > 0) {
+				throw new OverflowException(path, number, "long");
+			}
+			result = number.longValue();
+			break;
+		}
+
+		default:
+			throw new UnexpectedException("Value: " + type);
+		}
+
+		return result;
+	}
+
 	private Object get(String path, Class<?> expectedClass)
 			throws NoSuchPathException, TypeMismatchException {
+		return get(active, path, expectedClass);
+	}
+
+	private static Object get(ConfigVersion version, String path, Class<?> expectedClass)
+			throws NoSuchPathException, TypeMismatchException {
+		final Map<String, Object> map = version.map;
 
 		// Make sure there's a matching path...
 		if(!map.containsKey(path)) {
@@ -444,6 +1080,84 @@ public class Config implements Tad {
 		return result;
 	}
 
+	/**
+	 * Publish a new version and make it active.
+	 *
+	 * @param map
+	 *            The path to value map, this is not copied.
+	 * @param sources
+	 *            The path to source map, this is not copied.
+	 * @return The new version's number.
+	 */
+	synchronized long publish(Map<String, Object> map, Map<String, String> sources) {
+		checkNotPinned();
+		final ConfigVersion version = new ConfigVersion(nextVersion++, map, sources);
+		history[(int)(version.number % HISTORY_SIZE)] = version;
+		makeActive(version);
+		return version.number;
+	}
+
+	/**
+	 * @return The active version, null if nothing has been published yet.
+	 */
+	ConfigVersion getActiveVersion() {
+		return active;
+	}
+
+	/**
+	 * @param number
+	 *            The version number to get.
+	 * @return The version or null if it is no longer kept.
+	 */
+	synchronized ConfigVersion getKeptVersion(long number) {
+		checkNotPinned();
+		final ConfigVersion result = number < 1 ? null : history[(int)(number % HISTORY_SIZE)];
+		return result == null || result.number != number ? null : result;
+	}
+
+	/**
+	 * Notified, while the Config is locked, each time a version is made
+	 * active. Implementations should return quickly.
+	 */
+	interface Listener {
+		void activated(ConfigVersion version);
+	}
+
+	synchronized void addListener(Listener listener) {
+		checkNotPinned();
+		listeners.add(listener);
+	}
+
+	synchronized void removeListener(Listener listener) {
+		checkNotPinned();
+		listeners.remove(listener);
+	}
+
+	private void makeActive(ConfigVersion version) {
+		if(active != null && active != version) {
+			previousVersion = active.number;
+		}
+		active = version;
+		for(final Listener listener : listeners) {
+			listener.activated(version);
+		}
+	}
+
+	private void checkNotPinned() throws IllegalStateException {
+		if(history == null) {
+			throw new IllegalStateException("Pinned Config cannot be changed");
+		}
+	}
+
+	private static boolean isOakType(Class<?> clazz) {
+		return clazz == Boolean.class
+				|| clazz == Long.class
+				|| clazz == Double.class
+				|| clazz == BigInteger.class
+				|| clazz == BigDecimal.class
+				|| clazz == String.class;
+	}
+
 	private int getOakTypeAsInt(Class<? extends Object> clazz) {
 		final int result;
 
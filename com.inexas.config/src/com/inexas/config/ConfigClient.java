@@ -0,0 +1,189 @@
+package com.inexas.config;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * ConfigClient gets its config from a ConfigDaemon on the same machine instead
+ * of parsing the config files itself. Each change the daemon pushes is
+ * published as a new version of the client's Config so pin(), activate() and
+ * rollback() work as usual.
+ * <p>
+ * If a cache file is given then the last config received is saved in it. On
+ * start up the cache is loaded first so the client can run even if the daemon
+ * is not. The client keeps trying to reconnect if the daemon goes away. The
+ * cache holds the config's secrets so, like the daemon's token file, only its
+ * owner can read it.
+ *
+ * <pre>
+ * final ConfigClient client = ConfigClient.start(
+ * 		port,
+ * 		new File("config.token"),
+ * 		new File("config.cache"),
+ * 		5000);
+ * final Config config = client.getConfig();
+ * </pre>
+ */
+public class ConfigClient implements Closeable {
+	private final static int RETRY_MS = 1000;
+
+	private final int port;
+	private final File tokenFile;
+	private final File cacheFile;
+	private final Config config = new Config();
+	private final CountDownLatch ready = new CountDownLatch(1);
+	private final Thread reader;
+	private volatile boolean closed;
+	private volatile Socket socket;
+
+	// The following are only touched by the reader thread once it's started
+	private final Map<String, Object> map = new HashMap<>();
+	private final Map<String, String> sources = new HashMap<>();
+	private long daemonId;
+	private long version;
+
+	/**
+	 * Start a client, wait until it has some config and return it.
+	 *
+	 * @param port
+	 *            The loopback port the daemon is listening on.
+	 * @param tokenFile
+	 *            The token file written by the daemon. It is read each time the
+	 *            client connects as a restarted daemon has a new token.
+	 * @param cacheFile
+	 *            Where to save the last config received, or null for no cache.
+	 * @param timeoutMs
+	 *            How long to wait for the daemon if there is no cache.
+	 * @return The running client.
+	 * @throws IOException
+	 *             Thrown if there was no cache and nothing was received from
+	 *             the daemon in time.
+	 */
+	public static ConfigClient start(int port, File tokenFile, File cacheFile, long timeoutMs)
+			throws IOException {
+		final ConfigClient result = new ConfigClient(port, tokenFile, cacheFile);
+		result.readCache();
+		result.reader.start();
+		try {
+			if(!result.ready.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+				result.close();
+				throw new IOException("No config from daemon on port " + port + " and no cache");
+			}
+		} catch(final InterruptedException e) {
+			result.close();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for config");
+		}
+		return result;
+	}
+
+	// Constructor...
+
+	private ConfigClient(int port, File tokenFile, File cacheFile) {
+		this.port = port;
+		this.tokenFile = tokenFile;
+		this.cacheFile = cacheFile;
+		reader = new Thread(this::run, "ConfigClient-reader");
+		reader.setDaemon(true);
+	}
+
+	/**
+	 * @return The Config kept up to date by this client.
+	 */
+	public Config getConfig() {
+		return config;
+	}
+
+	/**
+	 * Disconnect from the daemon. The Config can still be used but will no
+	 * longer be updated.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		reader.interrupt();
+		final Socket toClose = socket;
+		if(toClose != null) {
+			try {
+				toClose.close();
+			} catch(final IOException e) {
+				// Ignore, we're closing anyway
+			}
+		}
+	}
+
+	private void run() {
+		while(!closed) {
+			try {
+				connect();
+			} catch(final IOException e) {
+				// Daemon not running or gone away, try again later
+			}
+
+			if(!closed) {
+				try {
+					Thread.sleep(RETRY_MS);
+				} catch(final InterruptedException e) {
+					break;
+				}
+			}
+		}
+	}
+
+	private void connect() throws IOException {
+		final byte[] token = ConfigCodec.readToken(tokenFile);
+		try(final Socket s = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			socket = s;
+			if(!closed) {
+				final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+				ConfigCodec.writeHello(out, token, daemonId, version);
+				final DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+				while(!closed) {
+					apply(ConfigCodec.readMessage(in));
+				}
+			}
+		}
+	}
+
+	private void apply(ConfigCodec.Message message) {
+		message.applyTo(map, sources);
+		daemonId = message.daemonId;
+		version = message.version;
+
+		final Map<String, Object> values = new HashMap<>(map);
+		final Map<String, String> valueSources = new HashMap<>(sources);
+		config.publish(values, valueSources);
+		writeCache(new ConfigVersion(version, values, valueSources));
+		ready.countDown();
+	}
+
+	private void readCache() {
+		if(cacheFile != null && cacheFile.isFile()) {
+			try(final DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(cacheFile)))) {
+				final ConfigCodec.Message message = ConfigCodec.readMessage(in);
+				if(message.type == ConfigCodec.FULL) {
+					apply(message);
+				}
+			} catch(final IOException e) {
+				// A damaged cache is no worse than no cache, the daemon will fix it
+			}
+		}
+	}
+
+	/**
+	 * Write the cache to a temporary, owner only, file and then move it into
+	 * place so a crash can't leave a half written cache.
+	 */
+	private void writeCache(ConfigVersion received) {
+		if(cacheFile != null) {
+			try {
+				ConfigCodec.writePrivateFile(cacheFile, ConfigCodec.encodeMessage(daemonId, null, received));
+			} catch(final IOException e) {
+				// We'll try again with the next change, meanwhile we have the config
+			}
+		}
+	}
+}
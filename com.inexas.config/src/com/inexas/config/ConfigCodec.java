@@ -0,0 +1,357 @@
+package com.inexas.config;
+
+import java.io.*;
+import java.math.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.security.*;
+import java.util.*;
+import java.util.Map.Entry;
+import com.inexas.exception.UnexpectedException;
+
+/**
+ * Reads and writes the messages exchanged between a ConfigDaemon and its
+ * ConfigClients. The same format is used for the client's cache file.
+ *
+ * <pre>
+ * hello:   int PROTOCOL, byte[TOKEN_LENGTH] token, long daemonId, long version
+ * message: byte FULL|DELTA, long daemonId, long version,
+ *          int count, { string path, string source, value }...
+ *          int count, { string path }...
+ * value:   byte tag, then nothing, a boolean, a long, a double or a string
+ * </pre>
+ *
+ * A FULL message replaces everything the receiver has; a DELTA lists only the
+ * paths that were added or changed followed by those that were removed.
+ * <p>
+ * The token in the hello is a random secret the daemon writes to a file that
+ * only its owner can read. A client proves it may see the config, secrets and
+ * all, by reading the file and sending the token back.
+ */
+final class ConfigCodec {
+	final static int PROTOCOL = 2;
+	final static int TOKEN_LENGTH = 32;
+
+	final static byte FULL = 1;
+	final static byte DELTA = 2;
+
+	/** Longer strings are taken to be a sign of damaged input */
+	private final static int MAX_STRING_LENGTH = 16 * 1024 * 1024;
+
+	private final static byte TAG_NULL = 0;
+	private final static byte TAG_BOOLEAN = 1;
+	private final static byte TAG_integer = 2;
+	private final static byte TAG_decimal = 3;
+	private final static byte TAG_INTEGER = 4;
+	private final static byte TAG_DECIMAL = 5;
+	private final static byte TAG_TEXT = 6;
+
+	/**
+	 * A decoded message.
+	 */
+	static class Message {
+		byte type;
+		long daemonId;
+		long version;
+		final Map<String, Object> puts = new HashMap<>();
+		final Map<String, String> putSources = new HashMap<>();
+		final List<String> removes = new ArrayList<>();
+
+		/**
+		 * Apply this message to the given maps.
+		 */
+		void applyTo(Map<String, Object> map, Map<String, String> sources) {
+			if(type == FULL) {
+				map.clear();
+				sources.clear();
+			}
+			for(final String path : removes) {
+				map.remove(path);
+				sources.remove(path);
+			}
+			map.putAll(puts);
+			sources.putAll(putSources);
+		}
+	}
+
+	private ConfigCodec() {
+		// Static methods only
+	}
+
+	static void writeHello(DataOutputStream out, byte[] token, long daemonId, long version)
+			throws IOException {
+		out.writeInt(PROTOCOL);
+		out.write(token);
+		out.writeLong(daemonId);
+		out.writeLong(version);
+		out.flush();
+	}
+
+	/**
+	 * @return A new random token.
+	 */
+	static byte[] newToken() {
+		final byte[] result = new byte[TOKEN_LENGTH];
+		new SecureRandom().nextBytes(result);
+		return result;
+	}
+
+	/**
+	 * Read a token written by a daemon.
+	 *
+	 * @throws IOException
+	 *             Thrown if the file can't be read or doesn't hold a token.
+	 */
+	static byte[] readToken(File file) throws IOException {
+		final byte[] result = Files.readAllBytes(file.toPath());
+		if(result.length != TOKEN_LENGTH) {
+			throw new IOException("Not a token file: " + file.getPath());
+		}
+		return result;
+	}
+
+	/**
+	 * Check a token received in a hello in a time that doesn't depend on how
+	 * much of it matches.
+	 */
+	static boolean isToken(byte[] expected, byte[] received) {
+		return MessageDigest.isEqual(expected, received);
+	}
+
+	/**
+	 * Write a file that only the owner can read: a token or a client's cache,
+	 * both of which hold secrets. The content is written to a temporary file
+	 * that is created owner-only, rw-------, where the file system supports
+	 * POSIX permissions, and then moved into place. A move that can't be done
+	 * atomically is done anyway.
+	 */
+	static void writePrivateFile(File file, byte[] content) throws IOException {
+		final Path target = file.toPath();
+		final Path temporary = Paths.get(file.getPath() + ".tmp");
+
+		Files.deleteIfExists(temporary);
+		if(temporary.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+			Files.createFile(
+					temporary,
+					PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} else {
+			Files.createFile(temporary);
+			final File created = temporary.toFile();
+			created.setReadable(false, false);
+			created.setReadable(true, true);
+			created.setWritable(false, false);
+			created.setWritable(true, true);
+		}
+
+		try(final OutputStream out = Files.newOutputStream(temporary, StandardOpenOption.WRITE)) {
+			out.write(content);
+		}
+
+		try {
+			Files.move(
+					temporary,
+					target,
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch(final AtomicMoveNotSupportedException e) {
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Encode a message describing how to get from one version to another.
+	 * Encoding the whole message before writing any of it means that a value
+	 * that can't be encoded doesn't leave half a message in the output.
+	 *
+	 * @see #writeMessage(DataOutputStream, long, ConfigVersion, ConfigVersion)
+	 */
+	static byte[] encodeMessage(long daemonId, ConfigVersion base, ConfigVersion next) {
+		final ByteArrayOutputStream result = new ByteArrayOutputStream();
+		try {
+			writeMessage(new DataOutputStream(result), daemonId, base, next);
+		} catch(final IOException e) {
+			throw new UnexpectedException("Writing to memory: " + e.getMessage());
+		}
+		return result.toByteArray();
+	}
+
+	/**
+	 * Write a message describing how to get from one version to another.
+	 *
+	 * @param base
+	 *            The version the receiver has or null if it has nothing useful
+	 *            in which case a FULL message is written.
+	 * @param next
+	 *            The version the receiver should end up with.
+	 */
+	static void writeMessage(
+			DataOutputStream out,
+			long daemonId,
+			ConfigVersion base,
+			ConfigVersion next) throws IOException {
+		out.writeByte(base == null ? FULL : DELTA);
+		out.writeLong(daemonId);
+		out.writeLong(next.number);
+
+		final List<String> puts = new ArrayList<>();
+		for(final Entry<String, Object> entry : next.map.entrySet()) {
+			final String path = entry.getKey();
+			if(base == null
+					|| !base.map.containsKey(path)
+					|| !Objects.equals(base.map.get(path), entry.getValue())
+					|| !Objects.equals(base.sources.get(path), next.sources.get(path))) {
+				puts.add(path);
+			}
+		}
+		out.writeInt(puts.size());
+		for(final String path : puts) {
+			writeString(out, path);
+			writeString(out, next.sources.get(path));
+			writeValue(out, next.map.get(path));
+		}
+
+		final List<String> removes = new ArrayList<>();
+		if(base != null) {
+			for(final String path : base.map.keySet()) {
+				if(!next.map.containsKey(path)) {
+					removes.add(path);
+				}
+			}
+		}
+		out.writeInt(removes.size());
+		for(final String path : removes) {
+			writeString(out, path);
+		}
+
+		out.flush();
+	}
+
+	static Message readMessage(DataInputStream in) throws IOException {
+		final Message result = new Message();
+
+		result.type = in.readByte();
+		if(result.type != FULL && result.type != DELTA) {
+			throw new IOException("Invalid message type: " + result.type);
+		}
+		result.daemonId = in.readLong();
+		result.version = in.readLong();
+
+		final int putCount = in.readInt();
+		for(int i = 0; i < putCount; i++) {
+			final String path = readString(in);
+			result.putSources.put(path, readString(in));
+			result.puts.put(path, readValue(in));
+		}
+
+		final int removeCount = in.readInt();
+		for(int i = 0; i < removeCount; i++) {
+			result.removes.add(readString(in));
+		}
+
+		return result;
+	}
+
+	private static void writeValue(DataOutputStream out, Object value) throws IOException {
+		if(value == null) {
+			out.writeByte(TAG_NULL);
+		} else if(value instanceof Boolean) {
+			out.writeByte(TAG_BOOLEAN);
+			out.writeBoolean(((Boolean)value).booleanValue());
+		} else if(value instanceof Long) {
+			out.writeByte(TAG_integer);
+			out.writeLong(((Long)value).longValue());
+		} else if(value instanceof Double) {
+			out.writeByte(TAG_decimal);
+			out.writeDouble(((Double)value).doubleValue());
+		} else if(value instanceof BigInteger) {
+			out.writeByte(TAG_INTEGER);
+			writeString(out, value.toString());
+		} else if(value instanceof BigDecimal) {
+			out.writeByte(TAG_DECIMAL);
+			writeString(out, value.toString());
+		} else if(value instanceof String) {
+			out.writeByte(TAG_TEXT);
+			writeString(out, (String)value);
+		} else {
+			throw new UnexpectedException("Type: " + value.getClass().getName());
+		}
+	}
+
+	private static Object readValue(DataInputStream in) throws IOException {
+		final Object result;
+
+		final byte tag = in.readByte();
+		switch(tag) {
+		case TAG_NULL:
+			result = null;
+			break;
+
+		case TAG_BOOLEAN:
+			result = Boolean.valueOf(in.readBoolean());
+			break;
+
+		case TAG_integer:
+			result = new Long(in.readLong());
+			break;
+
+		case TAG_decimal:
+			result = new Double(in.readDouble());
+			break;
+
+		case TAG_INTEGER:
+		case TAG_DECIMAL: {
+			final String text = readString(in);
+			if(text == null) {
+				throw new IOException("Invalid number: null");
+			}
+			try {
+				result = tag == TAG_INTEGER ? new BigInteger(text) : new BigDecimal(text);
+			} catch(final NumberFormatException e) {
+				throw new IOException("Invalid number: " + text);
+			}
+			break;
+		}
+
+		case TAG_TEXT:
+			result = readString(in);
+			break;
+
+		default:
+			throw new IOException("Invalid value tag: " + tag);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Strings are written as a length and UTF-8 bytes as writeUTF() is limited
+	 * to 64K. A length of -1 is used for null.
+	 */
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		if(string == null) {
+			out.writeInt(-1);
+		} else {
+			final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		final String result;
+
+		final int length = in.readInt();
+		if(length == -1) {
+			result = null;
+		} else if(length < 0 || length > MAX_STRING_LENGTH) {
+			throw new IOException("Invalid string length: " + length);
+		} else {
+			final byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			result = new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,306 @@
+package com.inexas.config;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * ConfigDaemon loads and merges the config once and serves it to ConfigClients
+ * on the same machine over the loopback interface. A client receives the whole
+ * config when it first connects and then only the paths that changed each time
+ * a different version is made active, e.g. by reload(), activate() or
+ * rollback() on the daemon's Config.
+ * <p>
+ * Each client is served by its own thread so a client that is slow to say
+ * hello or stops reading only holds up itself. A client that hasn't taken a
+ * message within WRITE_TIMEOUT_MS is disconnected when the next version is
+ * activated.
+ * <p>
+ * The config usually holds secrets so a client has to prove it may see it. The
+ * daemon writes a random token to a file only its owner can read and a client
+ * must send the token in its hello. A client with the wrong token is
+ * disconnected before anything is sent to it.
+ * <p>
+ * The daemon can be run on its own with main() or started inside any process,
+ * a test for example, with start(). Use port 0 to have the system choose a
+ * free port and getPort() to find out which one it chose.
+ */
+public class ConfigDaemon implements Closeable {
+	/** How long a newly connected client has to say hello */
+	private final static int HELLO_TIMEOUT_MS = 5000;
+	/** How long a write to a client may block before the client is dropped */
+	private final static int WRITE_TIMEOUT_MS = 10000;
+	/** Back-off limits for retrying after accept() fails, e.g. out of files */
+	private final static int ACCEPT_RETRY_MIN_MS = 100;
+	private final static int ACCEPT_RETRY_MAX_MS = 5000;
+
+	/**
+	 * A connected client. The thread that runs this says hello and then sends
+	 * the active version each time it is told there is a new one. If several
+	 * versions are activated while a write is in progress only the last one is
+	 * sent.
+	 */
+	private class Connection implements Runnable {
+		private final Socket socket;
+		/** The version the client has, only used by the connection's thread */
+		private ConfigVersion sent;
+		/** Guarded by this */
+		private boolean changed = true;
+		/** When the current write started or 0, guarded by this */
+		private long writeStarted;
+
+		Connection(Socket socket) {
+			this.socket = socket;
+		}
+
+		synchronized void changed() {
+			changed = true;
+			notifyAll();
+		}
+
+		synchronized boolean isStalled(long now) {
+			return writeStarted != 0 && now - writeStarted > WRITE_TIMEOUT_MS;
+		}
+
+		@Override
+		public void run() {
+			try {
+				handshake();
+				connections.add(this);
+				if(closed) {
+					return;
+				}
+
+				final OutputStream out = socket.getOutputStream();
+				while(!socket.isClosed()) {
+					synchronized(this) {
+						while(!changed && !socket.isClosed()) {
+							wait();
+						}
+						changed = false;
+					}
+
+					final ConfigVersion next = config.getActiveVersion();
+					if(next != sent) {
+						final byte[] message = ConfigCodec.encodeMessage(id, sent, next);
+						synchronized(this) {
+							writeStarted = System.currentTimeMillis();
+						}
+						out.write(message);
+						out.flush();
+						synchronized(this) {
+							writeStarted = 0;
+						}
+						sent = next;
+					}
+				}
+			} catch(final IOException | InterruptedException | RuntimeException e) {
+				// The client has gone away or can't be served, it will
+				// reconnect if it wants to
+			} finally {
+				close(this);
+			}
+		}
+
+		/**
+		 * Read the client's hello. If it already has a version that we still
+		 * keep then it will be sent a delta, otherwise the lot.
+		 *
+		 * @throws IOException
+		 *             Thrown if the hello is garbled or has the wrong token.
+		 */
+		private void handshake() throws IOException {
+			socket.setSoTimeout(HELLO_TIMEOUT_MS);
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			final int protocol = in.readInt();
+			if(protocol != ConfigCodec.PROTOCOL) {
+				throw new IOException("Unsupported protocol: " + protocol);
+			}
+			final byte[] clientToken = new byte[ConfigCodec.TOKEN_LENGTH];
+			in.readFully(clientToken);
+			if(!ConfigCodec.isToken(token, clientToken)) {
+				throw new IOException("Wrong token");
+			}
+			final long clientDaemonId = in.readLong();
+			final long clientVersion = in.readLong();
+			socket.setSoTimeout(0);
+
+			if(clientDaemonId == id) {
+				sent = config.getKeptVersion(clientVersion);
+			}
+		}
+	}
+
+	private final Config config;
+	private final long id = new Random().nextLong();
+	private final byte[] token = ConfigCodec.newToken();
+	private final File tokenFile;
+	private final ServerSocket serverSocket;
+	private final List<Connection> connections = new CopyOnWriteArrayList<>();
+	private final Config.Listener listener = this::activated;
+	private volatile boolean closed;
+
+	/**
+	 * Start serving a config on the loopback interface.
+	 *
+	 * @param config
+	 *            The config to serve. This must not be a pinned Config.
+	 * @param port
+	 *            The port to listen on or 0 to have one chosen.
+	 * @param tokenFile
+	 *            Where to write the token clients must send. The file is
+	 *            readable only by its owner, give clients the same file. It is
+	 *            deleted when the daemon is closed.
+	 * @return The running daemon.
+	 * @throws IOException
+	 *             Thrown if the port cannot be bound or the token file cannot be
+	 *             written.
+	 */
+	public static ConfigDaemon start(Config config, int port, File tokenFile) throws IOException {
+		final ConfigDaemon result = new ConfigDaemon(config, port, tokenFile);
+		try {
+			ConfigCodec.writePrivateFile(tokenFile, result.token);
+		} catch(final IOException e) {
+			result.close();
+			throw e;
+		}
+		config.addListener(result.listener);
+		startThread(result::accept, "ConfigDaemon-acceptor");
+		return result;
+	}
+
+	/**
+	 * Run the daemon: ConfigDaemon configPath port tokenFile. Type "reload", "rollback"
+	 * or "quit" on standard input to control it.
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length != 3) {
+			System.err.println("Usage: ConfigDaemon configPath port tokenFile");
+			System.exit(1);
+		}
+
+		final Config config = Config.newInstance(args[0]);
+		try(final ConfigDaemon daemon = start(config, Integer.parseInt(args[1]), new File(args[2]))) {
+			System.out.println("Serving version " + config.getVersion() + " on port " + daemon.getPort());
+			final BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
+			String line;
+			while((line = reader.readLine()) != null && !"quit".equals(line.trim())) {
+				try {
+					switch(line.trim()) {
+					case "reload":
+						System.out.println("Active version: " + config.reload());
+						break;
+
+					case "rollback":
+						System.out.println("Active version: " + config.rollback());
+						break;
+
+					default:
+						System.out.println("Commands: reload, rollback, quit");
+					}
+				} catch(final RuntimeException e) {
+					System.out.println(e.getMessage());
+				}
+			}
+		}
+	}
+
+	// Constructor...
+
+	private ConfigDaemon(Config config, int port, File tokenFile) throws IOException {
+		this.config = config;
+		this.tokenFile = tokenFile;
+		serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+	}
+
+	/**
+	 * @return The port the daemon is listening on.
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Stop listening, disconnect all the clients and delete the token file.
+	 */
+	@Override
+	public void close() {
+		if(!closed) {
+			closed = true;
+			config.removeListener(listener);
+			try {
+				serverSocket.close();
+			} catch(final IOException e) {
+				// Ignore, we're closing anyway
+			}
+			for(final Connection connection : connections) {
+				close(connection);
+			}
+			tokenFile.delete();
+		}
+	}
+
+	/**
+	 * Called with the Config locked so just wake up the connections' threads,
+	 * and drop any that are stuck writing, and let them do the work.
+	 */
+	private void activated(@SuppressWarnings("unused") ConfigVersion version) {
+		final long now = System.currentTimeMillis();
+		for(final Connection connection : connections) {
+			if(connection.isStalled(now)) {
+				close(connection);
+			} else {
+				connection.changed();
+			}
+		}
+	}
+
+	private void accept() {
+		int retryMs = ACCEPT_RETRY_MIN_MS;
+		while(!closed) {
+			boolean failed;
+			try {
+				final Socket socket = serverSocket.accept();
+				try {
+					startThread(new Connection(socket), "ConfigDaemon-client-" + socket.getPort());
+					failed = false;
+				} catch(final RuntimeException e) {
+					// The client will reconnect
+					socket.close();
+					failed = true;
+				}
+			} catch(final IOException e) {
+				// Perhaps out of file handles, wait and try again
+				failed = true;
+			}
+
+			if(!failed) {
+				retryMs = ACCEPT_RETRY_MIN_MS;
+			} else if(!closed) {
+				try {
+					Thread.sleep(retryMs);
+				} catch(final InterruptedException e) {
+					break;
+				}
+				retryMs = Math.min(retryMs * 2, ACCEPT_RETRY_MAX_MS);
+			}
+		}
+	}
+
+	private void close(Connection connection) {
+		connections.remove(connection);
+		try {
+			connection.socket.close();
+		} catch(final IOException e) {
+			// Ignore
+		}
+		connection.changed();
+	}
+
+	private static void startThread(Runnable runnable, String name) {
+		final Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+}
@@ -0,0 +1,184 @@
+package com.inexas.config;
+
+import java.math.*;
+import java.util.*;
+import java.util.regex.Pattern;
+import com.inexas.config.Config.TypeMismatchException;
+
+/**
+ * ConfigOverrides maps environment variables and system properties to config
+ * paths. The mapping is applied once when the config is loaded, after the
+ * .base and .config files have been read, so lookups pay nothing extra.
+ *
+ * <pre>
+ * final ConfigOverrides overrides = new ConfigOverrides()
+ * 		.env("MYCOMPONENT_DB_PASSWORD", "/MyComponent/Database/password")
+ * 		.property("mycomponent.version", "/MyComponent/version");
+ * final Config config = Config.newInstance("config/", overrides);
+ * </pre>
+ *
+ * Mappings are applied in the order they were added so if two mappings target
+ * the same path, and both are set, the last one wins. Unset variables and
+ * properties are ignored.
+ */
+public class ConfigOverrides {
+	private final static Pattern INTEGER = Pattern.compile("[+-]?[0-9]+");
+	private final static Pattern DECIMAL = Pattern.compile(
+			"[+-]?([0-9]+\\.[0-9]*|\\.[0-9]+|[0-9]+)([eE][+-]?[0-9]+)?");
+	private final static Pattern HEX = Pattern.compile("0[xX][0-9a-fA-F]+");
+	private final static Pattern BINARY = Pattern.compile("0[bB][01]+");
+
+	private static class Mapping {
+		final boolean environment;
+		final String name;
+		final String path;
+
+		Mapping(boolean environment, String name, String path) {
+			this.environment = environment;
+			this.name = name;
+			this.path = path;
+		}
+	}
+
+	private final List<Mapping> mappings = new ArrayList<>();
+
+	/**
+	 * Map an environment variable to a config path.
+	 *
+	 * @param variable
+	 *            The name of the environment variable, e.g. "DB_PASSWORD".
+	 * @param path
+	 *            The path, e.g. "/MyConfig/Database/password".
+	 * @return this, to allow chaining.
+	 */
+	public ConfigOverrides env(String variable, String path) {
+		assert variable != null && path != null;
+		mappings.add(new Mapping(true, variable, path));
+		return this;
+	}
+
+	/**
+	 * Map a system property, e.g. one set with -D on the command line, to a
+	 * config path.
+	 *
+	 * @param property
+	 *            The name of the system property, e.g. "db.password".
+	 * @param path
+	 *            The path, e.g. "/MyConfig/Database/password".
+	 * @return this, to allow chaining.
+	 */
+	public ConfigOverrides property(String property, String path) {
+		assert property != null && path != null;
+		mappings.add(new Mapping(false, property, path));
+		return this;
+	}
+
+	/**
+	 * Apply the overrides to a freshly loaded map. Each value is converted to
+	 * the Oak type of the value it replaces. If there is no existing value, or
+	 * it is null, the type is inferred from the text as Oak would: null,
+	 * boolean, integer, INTEGER, decimal and finally text.
+	 *
+	 * @param map
+	 *            The path to value map to update.
+	 * @param sources
+	 *            The path to source map to update.
+	 * @throws TypeMismatchException
+	 *             Thrown if the text cannot be converted to the type of the
+	 *             existing value.
+	 */
+	void apply(Map<String, Object> map, Map<String, String> sources) throws TypeMismatchException {
+		for(final Mapping mapping : mappings) {
+			final String text = mapping.environment
+					? System.getenv(mapping.name)
+					: System.getProperty(mapping.name);
+			if(text != null) {
+				final String path = mapping.path;
+				map.put(path, coerce(path, text, map.get(path)));
+				sources.put(path, (mapping.environment ? "env:" : "property:") + mapping.name);
+			}
+		}
+	}
+
+	static Object coerce(String path, String text, Object existing) throws TypeMismatchException {
+		final Object result;
+
+		final String trimmed = text.trim();
+		if(existing == null) {
+			result = infer(path, trimmed, text);
+		} else if(existing instanceof String) {
+			result = text;
+		} else if("null".equals(trimmed)) {
+			result = null;
+		} else if(existing instanceof Boolean) {
+			if("true".equalsIgnoreCase(trimmed)) {
+				result = Boolean.TRUE;
+			} else if("false".equalsIgnoreCase(trimmed)) {
+				result = Boolean.FALSE;
+			} else {
+				throw new TypeMismatchException(path, text, Boolean.class);
+			}
+		} else if(existing instanceof Number) {
+			final Object inferred = infer(path, trimmed, text);
+			if(!(inferred instanceof Number)) {
+				throw new TypeMismatchException(path, text, existing.getClass());
+			}
+			final Number number = (Number)inferred;
+			final Class<?> clazz = existing.getClass();
+			try {
+				if(clazz == Double.class) {
+					result = new Double(number.doubleValue());
+				} else if(clazz == BigDecimal.class) {
+					result = number instanceof Double ? new BigDecimal(trimmed) : new BigDecimal(number.toString());
+				} else if(number instanceof Double) {
+					// Don't silently truncate 1.5 to 1...
+					throw new TypeMismatchException(path, text, clazz);
+				} else if(clazz == BigInteger.class) {
+					result = number instanceof BigInteger ? number : BigInteger.valueOf(number.longValue());
+				} else {
+					// Long, the integer may still grow to an INTEGER
+					result = number;
+				}
+			} catch(final NumberFormatException e) {
+				throw new TypeMismatchException(path, text, clazz);
+			}
+		} else {
+			throw new TypeMismatchException(path, text, existing.getClass());
+		}
+
+		return result;
+	}
+
+	private static Object infer(String path, String trimmed, String text) throws TypeMismatchException {
+		final Object result;
+
+		if("null".equals(trimmed)) {
+			result = null;
+		} else if("true".equals(trimmed)) {
+			result = Boolean.TRUE;
+		} else if("false".equals(trimmed)) {
+			result = Boolean.FALSE;
+		} else if(INTEGER.matcher(trimmed).matches()) {
+			result = toInteger(new BigInteger(trimmed.startsWith("+") ? trimmed.substring(1) : trimmed));
+		} else if(HEX.matcher(trimmed).matches()) {
+			result = toInteger(new BigInteger(trimmed.substring(2), 16));
+		} else if(BINARY.matcher(trimmed).matches()) {
+			result = toInteger(new BigInteger(trimmed.substring(2), 2));
+		} else if(DECIMAL.matcher(trimmed).matches()) {
+			final Double d = new Double(trimmed);
+			if(d.isInfinite()) {
+				// Probably a typo, e.g. 1e999, don't let it through as Infinity
+				throw new TypeMismatchException(path, text, Double.class);
+			}
+			result = d;
+		} else {
+			result = text;
+		}
+
+		return result;
+	}
+
+	private static Object toInteger(BigInteger bi) {
+		return bi.bitLength() < 64 ? (Object)new Long(bi.longValue()) : bi;
+	}
+}
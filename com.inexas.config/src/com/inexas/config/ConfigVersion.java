@@ -0,0 +1,53 @@
+package com.inexas.config;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * An immutable snapshot of the values in a Config. A Config keeps a bounded
+ * ring of these and getters read from whichever one is active. Once a version
+ * has dropped out of the ring it is reclaimed by the garbage collector as soon
+ * as the last pinned Config that holds it is dropped.
+ * <p>
+ * Values that need parsing, a Duration from "30s" for example, are parsed the
+ * first time they are asked for and the result cached here. As the version is
+ * immutable the cache never needs to be invalidated.
+ */
+final class ConfigVersion {
+	final long number;
+	final Map<String, Object> map;
+	final Map<String, String> sources;
+	/** Type key to path to parsed value, see Config.getParsed() */
+	private final ConcurrentMap<Object, ConcurrentMap<String, Object>> parsed = new ConcurrentHashMap<>();
+
+	/**
+	 * @param number
+	 *            The version number, unique within the Config that owns it.
+	 * @param map
+	 *            The path to value map. This is not copied so the caller must
+	 *            not modify it afterwards.
+	 * @param sources
+	 *            The path to source map, also not copied.
+	 */
+	ConfigVersion(long number, Map<String, Object> map, Map<String, String> sources) {
+		this.number = number;
+		this.map = Collections.unmodifiableMap(map);
+		this.sources = Collections.unmodifiableMap(sources);
+	}
+
+	/**
+	 * @param type
+	 *            The key for the type the value was parsed to.
+	 * @param path
+	 *            The path, e.g. "/MyConfig/Database/timeout".
+	 * @return The cached parsed value or null if it has not been cached.
+	 */
+	Object getParsed(Object type, String path) {
+		final Map<String, Object> values = parsed.get(type);
+		return values == null ? null : values.get(path);
+	}
+
+	void putParsed(Object type, String path, Object value) {
+		parsed.computeIfAbsent(type, key -> new ConcurrentHashMap<>()).put(path, value);
+	}
+}
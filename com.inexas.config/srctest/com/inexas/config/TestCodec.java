@@ -0,0 +1,69 @@
+package com.inexas.config;
+
+import static org.junit.Assert.*;
+import java.io.*;
+import java.math.*;
+import java.util.*;
+import org.junit.Test;
+
+public class TestCodec {
+
+	private ConfigVersion newVersion(long number, Object... pathsAndValues) {
+		final Map<String, Object> map = new HashMap<>();
+		final Map<String, String> sources = new HashMap<>();
+		for(int i = 0; i < pathsAndValues.length; i += 2) {
+			map.put((String)pathsAndValues[i], pathsAndValues[i + 1]);
+			sources.put((String)pathsAndValues[i], "Test.config");
+		}
+		return new ConfigVersion(number, map, sources);
+	}
+
+	private ConfigCodec.Message decode(byte[] bytes) throws IOException {
+		return ConfigCodec.readMessage(new DataInputStream(new ByteArrayInputStream(bytes)));
+	}
+
+	@Test
+	public void testFull() throws IOException {
+		final ConfigVersion version = newVersion(
+				1,
+				"/a", "text",
+				"/b", new Long(1),
+				"/c", new Double(1.5),
+				"/d", new BigInteger("123456789012345678901234567890"),
+				"/e", new BigDecimal("1.10"),
+				"/f", Boolean.TRUE,
+				"/g", null);
+		final ConfigCodec.Message message = decode(ConfigCodec.encodeMessage(42, null, version));
+		assertEquals(ConfigCodec.FULL, message.type);
+		assertEquals(42, message.daemonId);
+		assertEquals(1, message.version);
+		assertEquals(version.map, message.puts);
+		assertEquals("Test.config", message.putSources.get("/g"));
+		assertTrue(message.removes.isEmpty());
+	}
+
+	@Test
+	public void testDelta() throws IOException {
+		final ConfigVersion v1 = newVersion(1, "/a", "A", "/b", "B", "/c", new Long(1));
+		final ConfigVersion v2 = newVersion(2, "/a", "A", "/b", "changed", "/d", null);
+		final ConfigCodec.Message message = decode(ConfigCodec.encodeMessage(42, v1, v2));
+		assertEquals(ConfigCodec.DELTA, message.type);
+		assertEquals(2, message.version);
+
+		final Map<String, Object> expected = new HashMap<>();
+		expected.put("/b", "changed");
+		expected.put("/d", null);
+		assertEquals(expected, message.puts);
+		assertEquals(Collections.singletonList("/c"), message.removes);
+
+		final Map<String, Object> map = new HashMap<>(v1.map);
+		message.applyTo(map, new HashMap<String, String>());
+		assertEquals(v2.map, map);
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncated() throws IOException {
+		final byte[] bytes = ConfigCodec.encodeMessage(42, null, newVersion(1, "/a", "text"));
+		decode(Arrays.copyOf(bytes, bytes.length - 1));
+	}
+}
@@ -0,0 +1,196 @@
+package com.inexas.config;
+
+import static org.junit.Assert.*;
+import java.io.*;
+import java.math.BigDecimal;
+import java.net.*;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+import org.junit.Test;
+import com.inexas.config.Config.NoSuchPathException;
+
+public class TestDaemon {
+
+	private Config newConfig(String password) {
+		final Config result = new Config();
+		final Map<String, Object> map = new HashMap<>();
+		final Map<String, String> sources = new HashMap<>();
+		map.put("/MyComponent/Database/userid", "SA");
+		map.put("/MyComponent/Database/password", password);
+		map.put("/MyComponent/version", new Long(3));
+		map.put("/MyComponent/rate", new BigDecimal("1.25"));
+		map.put("/MyComponent/optional", null);
+		for(final String path : map.keySet()) {
+			sources.put(path, "MyComponent.config");
+		}
+		result.publish(map, sources);
+		return result;
+	}
+
+	private File newFile(String suffix) throws IOException {
+		final File result = File.createTempFile("config", suffix);
+		result.deleteOnExit();
+		assertTrue(result.delete());
+		return result;
+	}
+
+	private void waitFor(Config config, String path, String expected) throws InterruptedException {
+		for(int i = 0; i < 100; i++) {
+			try {
+				if(Objects.equals(expected, config.getString(path))) {
+					return;
+				}
+			} catch(final NoSuchPathException e) {
+				if(expected == null) {
+					return;
+				}
+			}
+			Thread.sleep(50);
+		}
+		fail("Timed out waiting for " + path + " to be " + expected);
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void testSnapshotAndDeltas() throws Exception {
+		final Config config = newConfig("secret");
+		final File token = newFile(".token");
+		try(final ConfigDaemon daemon = ConfigDaemon.start(config, 0, token);
+				final ConfigClient client = ConfigClient.start(daemon.getPort(), token, null, 5000)) {
+			final Config clientConfig = client.getConfig();
+			assertEquals("SA", clientConfig.getString("/MyComponent/Database/userid"));
+			assertEquals("secret", clientConfig.getString("/MyComponent/Database/password"));
+			assertEquals(3, clientConfig.getInt("/MyComponent/version"));
+			assertEquals("1.25", clientConfig.getString("/MyComponent/rate"));
+			assertNull(clientConfig.getString("/MyComponent/optional"));
+			assertEquals("MyComponent.config", clientConfig.getSource("/MyComponent/version"));
+
+			config.set("/MyComponent/Database/password", "changed");
+			waitFor(clientConfig, "/MyComponent/Database/password", "changed");
+
+			config.rollback();
+			waitFor(clientConfig, "/MyComponent/Database/password", "secret");
+		}
+	}
+
+	@Test
+	public void testCache() throws Exception {
+		final File cache = newFile(".cache");
+		final File token = newFile(".token");
+
+		final Config config = newConfig("cached");
+		final int port;
+		try(final ConfigDaemon daemon = ConfigDaemon.start(config, 0, token);
+				final ConfigClient client = ConfigClient.start(daemon.getPort(), token, cache, 5000)) {
+			port = daemon.getPort();
+			assertEquals("cached", client.getConfig().getString("/MyComponent/Database/password"));
+		}
+		assertTrue(cache.isFile());
+		assertFalse(token.exists());
+
+		// The daemon has gone but the cache is there...
+		try(final ConfigClient client = ConfigClient.start(port, token, cache, 0)) {
+			assertEquals("cached", client.getConfig().getString("/MyComponent/Database/password"));
+		}
+	}
+
+	@Test
+	public void testSilentClientDoesNotBlockOthers() throws Exception {
+		final File token = newFile(".token");
+		try(final ConfigDaemon daemon = ConfigDaemon.start(newConfig("secret"), 0, token);
+				final Socket silent = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+			// The hello timeout is 5s, this client must be served well before that
+			try(final ConfigClient client = ConfigClient.start(daemon.getPort(), token, null, 2000)) {
+				assertEquals("secret", client.getConfig().getString("/MyComponent/Database/password"));
+			}
+		}
+	}
+
+	@Test
+	public void testDamagedCache() throws Exception {
+		final File cache = File.createTempFile("config", ".cache");
+		cache.deleteOnExit();
+		try(final DataOutputStream out = new DataOutputStream(new FileOutputStream(cache))) {
+			out.writeByte(1);
+			out.writeLong(0);
+			out.writeLong(1);
+			out.writeInt(1);
+			out.writeInt(Integer.MAX_VALUE);
+		}
+
+		final File token = newFile(".token");
+		try(final ConfigDaemon daemon = ConfigDaemon.start(newConfig("secret"), 0, token);
+				final ConfigClient client = ConfigClient.start(daemon.getPort(), token, cache, 5000)) {
+			assertEquals("secret", client.getConfig().getString("/MyComponent/Database/password"));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testNoDaemonNoCache() throws Exception {
+		final File token = newFile(".token");
+		final int port;
+		try(final ConfigDaemon daemon = ConfigDaemon.start(newConfig("x"), 0, token)) {
+			port = daemon.getPort();
+		}
+		ConfigClient.start(port, token, null, 100);
+	}
+
+	@Test
+	public void testWrongToken() throws Exception {
+		final File token = newFile(".token");
+		try(final ConfigDaemon daemon = ConfigDaemon.start(newConfig("secret"), 0, token);
+				final Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+			final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			ConfigCodec.writeHello(out, new byte[ConfigCodec.TOKEN_LENGTH], 0, 0);
+			socket.setSoTimeout(5000);
+			// Hung up on without being sent anything
+			assertEquals(-1, socket.getInputStream().read());
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void testHelloWithKeptVersionGetsDelta() throws Exception {
+		final Config config = newConfig("secret");
+		final File token = newFile(".token");
+		try(final ConfigDaemon daemon = ConfigDaemon.start(config, 0, token)) {
+			final ConfigCodec.Message first = hello(daemon.getPort(), token, 0, 0);
+			assertEquals(ConfigCodec.FULL, first.type);
+
+			config.set("/MyComponent/Database/password", "changed");
+			final ConfigCodec.Message next = hello(daemon.getPort(), token, first.daemonId, first.version);
+			assertEquals(ConfigCodec.DELTA, next.type);
+			assertEquals(config.getVersion(), next.version);
+			assertEquals(
+					Collections.singletonMap("/MyComponent/Database/password", "changed"),
+					next.puts);
+			assertTrue(next.removes.isEmpty());
+
+			// A version from some other daemon gets the lot
+			assertEquals(ConfigCodec.FULL, hello(daemon.getPort(), token, first.daemonId + 1, first.version).type);
+		}
+	}
+
+	private ConfigCodec.Message hello(int port, File token, long daemonId, long version) throws IOException {
+		try(final Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+			final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			ConfigCodec.writeHello(out, ConfigCodec.readToken(token), daemonId, version);
+			socket.setSoTimeout(5000);
+			return ConfigCodec.readMessage(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+		}
+	}
+
+	@Test
+	public void testFilesArePrivate() throws Exception {
+		final File cache = newFile(".cache");
+		final File token = newFile(".token");
+		try(final ConfigDaemon daemon = ConfigDaemon.start(newConfig("secret"), 0, token);
+				final ConfigClient client = ConfigClient.start(daemon.getPort(), token, cache, 5000)) {
+			if(FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+				assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(token.toPath())));
+				assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(cache.toPath())));
+			}
+		}
+	}
+}
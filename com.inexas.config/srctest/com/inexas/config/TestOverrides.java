@@ -0,0 +1,79 @@
+package com.inexas.config;
+
+import static org.junit.Assert.*;
+import java.math.*;
+import org.junit.Test;
+import com.inexas.config.Config.TypeMismatchException;
+
+public class TestOverrides {
+
+	@Test
+	public void testInfer() {
+		assertNull(ConfigOverrides.coerce("/a", "null", null));
+		assertEquals(Boolean.TRUE, ConfigOverrides.coerce("/a", "true", null));
+		assertEquals(new Long(5), ConfigOverrides.coerce("/a", "5", null));
+		assertEquals(new Long(16), ConfigOverrides.coerce("/a", "0x10", null));
+		assertEquals(new Long(7), ConfigOverrides.coerce("/a", "0b111", null));
+		assertEquals(new BigInteger("123456789012345678901234567890"),
+				ConfigOverrides.coerce("/a", "123456789012345678901234567890", null));
+		assertEquals(new Double("1.5"), ConfigOverrides.coerce("/a", "1.5", null));
+		assertEquals("abc", ConfigOverrides.coerce("/a", "abc", null));
+	}
+
+	@Test
+	public void testCoerceToExisting() {
+		assertEquals("007", ConfigOverrides.coerce("/a", "007", "password"));
+		assertEquals(Boolean.FALSE, ConfigOverrides.coerce("/a", "FALSE", Boolean.TRUE));
+		assertEquals(new Double(2), ConfigOverrides.coerce("/a", "2", new Double(1)));
+		assertEquals(new BigDecimal("1.10"), ConfigOverrides.coerce("/a", "1.10", new BigDecimal("1")));
+		assertEquals(BigInteger.TEN, ConfigOverrides.coerce("/a", "10", BigInteger.ONE));
+		assertNull(ConfigOverrides.coerce("/a", "null", new Long(1)));
+	}
+
+	@Test
+	public void testNotANumber() {
+		try {
+			ConfigOverrides.coerce("/a", "abc", new Long(1));
+			fail("Converted text to a number");
+		} catch(final TypeMismatchException e) {
+			assertTrue(e.getMessage().contains("abc"));
+		}
+	}
+
+	@Test(expected = TypeMismatchException.class)
+	public void testInfiniteDouble() {
+		ConfigOverrides.coerce("/a", "1e999", new Double(1));
+	}
+
+	@Test(expected = TypeMismatchException.class)
+	public void testInfiniteInferred() {
+		ConfigOverrides.coerce("/a", "-1e999", null);
+	}
+
+	@Test(expected = TypeMismatchException.class)
+	public void testLostPrecision() {
+		ConfigOverrides.coerce("/a", "1.5", new Long(1));
+	}
+
+	@Test
+	public void testLoad() {
+		System.setProperty("test.overrides.c", "42");
+		System.setProperty("test.overrides.f", "new");
+		try {
+			final ConfigOverrides overrides = new ConfigOverrides()
+					.property("test.overrides.c", "/Test/c")
+					.property("test.overrides.f", "/Test/f")
+					.property("test.overrides.unset", "/Test/a");
+			final Config config = Config.newInstance("datatest/config", overrides);
+			assertEquals(42, config.getInt("/Test/c"));
+			assertEquals("property:test.overrides.c", config.getSource("/Test/c"));
+			assertEquals("new", config.getString("/Test/f"));
+			assertEquals("A", config.getString("/Test/a"));
+			assertEquals("Test.base", config.getSource("/Test/a"));
+			assertEquals("Test.config", config.getSource("/Test/b"));
+		} finally {
+			System.clearProperty("test.overrides.c");
+			System.clearProperty("test.overrides.f");
+		}
+	}
+}
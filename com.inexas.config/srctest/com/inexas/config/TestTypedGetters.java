@@ -0,0 +1,124 @@
+package com.inexas.config;
+
+import static org.junit.Assert.*;
+import java.math.*;
+import java.time.Duration;
+import org.junit.Test;
+import com.inexas.config.Config.NullValueException;
+import com.inexas.config.Config.OverflowException;
+import com.inexas.config.Config.TypeMismatchException;
+
+public class TestTypedGetters {
+	private enum Level {
+		DEBUG, INFO, WARN
+	}
+
+	private final Config config = Config.newInstance("datatest/config");
+
+	@Test
+	public void testNumbers() {
+		assertEquals(2.0, config.getDouble("/Test/Typed/count"), 0);
+		assertEquals(1.1, config.getDouble("/Test/Typed/ratio"), 0);
+		assertEquals(new BigInteger("2"), config.getBigInteger("/Test/Typed/count"));
+		assertEquals(new BigDecimal("2"), config.getBigDecimal("/Test/Typed/count"));
+		assertEquals(new BigDecimal("1.1"), config.getBigDecimal("/Test/Typed/ratio"));
+		assertNull(config.getDoubleObject("/Test/d"));
+		assertNull(config.getBigDecimal("/Test/d"));
+	}
+
+	@Test(expected = OverflowException.class)
+	public void testFractionToBigInteger() {
+		config.getBigInteger("/Test/Typed/fraction");
+	}
+
+	@Test(expected = NullValueException.class)
+	public void testNullDouble() {
+		config.getDouble("/Test/d");
+	}
+
+	@Test(expected = TypeMismatchException.class)
+	public void testTextToDouble() {
+		config.getDouble("/Test/a");
+	}
+
+	@Test
+	public void testDuration() {
+		assertEquals(Duration.ofSeconds(30), config.getDuration("/Test/Typed/timeout"));
+		assertEquals(Duration.ofMillis(500), config.getDuration("/Test/Typed/shortTimeout"));
+		assertEquals(Duration.ofSeconds(30), config.getDuration("/Test/Typed/upperTimeout"));
+		assertEquals(Duration.ofHours(2), config.getDuration("/Test/Typed/longTimeout"));
+		assertEquals(Duration.ofSeconds(90), config.getDuration("/Test/Typed/isoTimeout"));
+		assertEquals(Duration.ofMillis(250), config.getDuration("/Test/Typed/millis"));
+		assertEquals(Duration.ofMillis(100), config.getDuration("/Test/Typed/unitless"));
+	}
+
+	@Test
+	public void testUnitlessOverride() {
+		System.setProperty("test.typed.timeout", "100");
+		try {
+			final Config overridden = Config.newInstance(
+					"datatest/config",
+					new ConfigOverrides().property("test.typed.timeout", "/Test/Typed/timeout"));
+			assertEquals(Duration.ofMillis(100), overridden.getDuration("/Test/Typed/timeout"));
+		} finally {
+			System.clearProperty("test.typed.timeout");
+		}
+	}
+
+	@Test
+	public void testBadDuration() {
+		try {
+			config.getDuration("/Test/Typed/badTimeout");
+			fail("Parsed a bad duration");
+		} catch(final TypeMismatchException e) {
+			assertTrue(e.getMessage().contains("30 parsecs"));
+		}
+	}
+
+	@Test(expected = TypeMismatchException.class)
+	public void testFractionalDuration() {
+		config.getDuration("/Test/Typed/fraction");
+	}
+
+	@Test
+	public void testBytes() {
+		assertEquals(512L * 1024 * 1024, config.getBytes("/Test/Typed/size"));
+		assertEquals(1024, config.getBytes("/Test/Typed/smallSize"));
+		assertEquals(2L * 1024 * 1024 * 1024, config.getBytes("/Test/Typed/bigSize"));
+		assertEquals(100, config.getBytes("/Test/Typed/plainSize"));
+		assertEquals(64, config.getBytes("/Test/Typed/bytes"));
+	}
+
+	@Test(expected = OverflowException.class)
+	public void testBytesOverflow() {
+		config.getBytes("/Test/Typed/hugeSize");
+	}
+
+	@Test
+	public void testEnum() {
+		assertEquals(Level.WARN, config.getEnum("/Test/Typed/level", Level.class));
+		assertEquals(Level.INFO, config.getEnum("/Test/Typed/lowerLevel", Level.class));
+	}
+
+	@Test
+	public void testBadEnum() {
+		try {
+			config.getEnum("/Test/Typed/badLevel", Level.class);
+			fail("Found a missing constant");
+		} catch(final TypeMismatchException e) {
+			assertTrue(e.getMessage().contains("VERBOSE"));
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void testCachedPerVersion() {
+		final Duration first = config.getDuration("/Test/Typed/timeout");
+		assertSame(first, config.getDuration("/Test/Typed/timeout"));
+
+		config.set("/Test/Typed/timeout", "1m");
+		assertEquals(Duration.ofMinutes(1), config.getDuration("/Test/Typed/timeout"));
+		config.rollback();
+		assertSame(first, config.getDuration("/Test/Typed/timeout"));
+	}
+}
@@ -0,0 +1,106 @@
+package com.inexas.config;
+
+import static org.junit.Assert.*;
+import java.util.*;
+import org.junit.Test;
+import com.inexas.config.Config.NoSuchVersionException;
+
+@SuppressWarnings("deprecation")
+public class TestVersions {
+
+	@Test
+	public void testPin() {
+		final Config config = Config.newInstance("datatest/config");
+		final Config pinned = config.pin();
+		config.set("/Test/a", "changed");
+		assertEquals("changed", config.getString("/Test/a"));
+		assertEquals("A", pinned.getString("/Test/a"));
+		assertEquals(config.getVersion() - 1, pinned.getVersion());
+	}
+
+	@Test
+	public void testActivateAndRollback() {
+		final Config config = Config.newInstance("datatest/config");
+		assertEquals(1, config.getVersion());
+		final long reloaded = config.reload();
+		assertEquals(2, reloaded);
+		config.set("/Test/a", "bad");
+		assertEquals(3, config.getVersion());
+
+		assertEquals(2, config.rollback());
+		assertEquals("A", config.getString("/Test/a"));
+		config.activate(3);
+		assertEquals("bad", config.getString("/Test/a"));
+		config.activate(1);
+		assertEquals("A", config.getString("/Test/a"));
+	}
+
+	@Test
+	public void testRollbackReloadRollback() {
+		final Config config = Config.newInstance("datatest/config");
+		config.set("/Test/a", "bad");
+		assertEquals(1, config.rollback());
+		assertEquals(3, config.reload());
+		assertEquals(1, config.rollback());
+		assertEquals("A", config.getString("/Test/a"));
+
+		// Rolling back a rollback goes back to where we were...
+		assertEquals(3, config.rollback());
+		config.activate(1);
+		assertEquals(3, config.rollback());
+	}
+
+	@Test(expected = NoSuchVersionException.class)
+	public void testNothingToRollback() {
+		Config.newInstance("datatest/config").rollback();
+	}
+
+	@Test
+	public void testUpdate() {
+		final Config config = Config.newInstance("datatest/config");
+		final Map<String, Object> changes = new HashMap<>();
+		changes.put("/Test/a", "changed");
+		changes.put("/Test/b", "also changed");
+		assertEquals(2, config.update(changes));
+		assertEquals("changed", config.getString("/Test/a"));
+		assertEquals("also changed", config.getString("/Test/b"));
+		assertEquals("set", config.getSource("/Test/b"));
+		assertEquals(1, config.rollback());
+		assertEquals("overridden", config.getString("/Test/b"));
+	}
+
+	@Test
+	public void testUpdateRejectsNonOakTypes() {
+		final Config config = Config.newInstance("datatest/config");
+		final Map<String, Object> changes = new HashMap<>();
+		changes.put("/Test/a", "fine");
+		changes.put("/Test/c", new Integer(2));
+		try {
+			config.update(changes);
+			fail("Integer accepted");
+		} catch(final IllegalArgumentException e) {
+			assertEquals(1, config.getVersion());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testPinnedCannotBeUpdated() {
+		final Config config = Config.newInstance("datatest/config");
+		config.pin().update(Collections.singletonMap("/Test/a", "x"));
+	}
+
+	@Test(expected = NoSuchVersionException.class)
+	public void testEvicted() {
+		final Config config = Config.newInstance("datatest/config");
+		for(int i = 0; i < 10; i++) {
+			config.set("/Test/a", "v" + i);
+		}
+		config.activate(1);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testPinnedIsReadOnly() {
+		final Config config = Config.newInstance("datatest/config");
+		config.pin().reload();
+	}
+}